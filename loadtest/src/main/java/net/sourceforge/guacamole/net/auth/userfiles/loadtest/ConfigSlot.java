@@ -0,0 +1,168 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.io.File;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The config file of a single virtual user, together with what the writer
+ * last published into it. Every change increments the generation, so a reader
+ * can tell whether the file stayed the same during its call.
+ *
+ * @author Heiko Henning
+ */
+public class ConfigSlot {
+
+    /**
+     * What the writer last published into a config file.
+     */
+    public enum State {
+
+        /**
+         * No config file exists.
+         */
+        ABSENT,
+
+        /**
+         * The config file is being written.
+         */
+        WRITING,
+
+        /**
+         * A valid config file exists.
+         */
+        VALID,
+
+        /**
+         * A valid single-use config file exists, it must be readable exactly
+         * once.
+         */
+        SINGLE_USE,
+
+        /**
+         * A config file exists but its valid_to is outdated.
+         */
+        EXPIRED
+    }
+
+    /**
+     * The state of a config slot at a point in time.
+     */
+    public static class Snapshot {
+
+        public final long generation;
+
+        public final State state;
+
+        public final boolean consumed;
+
+        public final boolean judgeable;
+
+        private Snapshot(long generation, State state, boolean consumed, boolean judgeable) {
+            this.generation = generation;
+            this.state = state;
+            this.consumed = consumed;
+            this.judgeable = judgeable;
+        }
+    }
+
+    /**
+     * The user the config file belongs to.
+     */
+    private final String username;
+
+    /**
+     * The ident the config file belongs to.
+     */
+    private final String ident;
+
+    /**
+     * The config file.
+     */
+    private final File file;
+
+    /**
+     * Held by the writer while replacing the config file.
+     */
+    private final Lock writeLock = new ReentrantLock();
+
+    private long generation = 0;
+
+    private State state = State.ABSENT;
+
+    /**
+     * Whether the current single-use config file has been read.
+     */
+    private boolean consumed = false;
+
+    /**
+     * Whether reads of the current config file can be judged. This is not
+     * the case once a read overlapped its publishing, as it is unknown
+     * which file that read has seen.
+     */
+    private boolean judgeable = true;
+
+    public ConfigSlot(String username, String ident, File file) {
+        this.username = username;
+        this.ident = ident;
+        this.file = file;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getIdent() {
+        return ident;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Lock getWriteLock() {
+        return writeLock;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(generation, state, consumed, judgeable);
+    }
+
+    /**
+     * Change the state and start a new generation.
+     *
+     * @param state The new state.
+     */
+    public synchronized void publish(State state) {
+        this.generation++;
+        this.state = state;
+        this.consumed = false;
+        this.judgeable = true;
+    }
+
+    /**
+     * Stop judging reads of the config file of the given generation.
+     *
+     * @param generation The generation which a read might have seen.
+     */
+    public synchronized void unjudgeable(long generation) {
+        if (this.generation == generation) {
+            judgeable = false;
+        }
+    }
+
+    /**
+     * Mark the single-use config file of the given generation as read.
+     *
+     * @param generation The generation which was read.
+     * @return false if it already was read before.
+     */
+    public synchronized boolean consume(long generation) {
+        if (this.generation != generation || consumed) {
+            return false;
+        }
+
+        consumed = true;
+        return true;
+    }
+}
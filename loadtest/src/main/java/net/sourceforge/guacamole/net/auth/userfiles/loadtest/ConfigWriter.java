@@ -0,0 +1,191 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import net.sourceforge.guacamole.net.auth.userfiles.UserFilesAuthenticationProvider;
+
+/**
+ * Simulates the portal: keeps creating, rewriting, expiring, deleting and
+ * publishing single-use config files of random virtual users.
+ *
+ * @author Heiko Henning
+ */
+public class ConfigWriter implements Runnable {
+
+    /**
+     * Number of connections within each config file, to get realistic file
+     * sizes.
+     */
+    private static final int CONNECTIONS = 10;
+
+    /**
+     * Size of the chunks written when not publishing atomically, so readers
+     * get a chance to see partial files.
+     */
+    private static final int CHUNK_SIZE = 512;
+
+    private final int id;
+
+    private final List<ConfigSlot> slots;
+
+    private final LoadTestStats stats;
+
+    /**
+     * Whether to publish by writing a temporary file and renaming it, or to
+     * write the config file in place.
+     */
+    private final boolean atomic;
+
+    /**
+     * Time to wait between two changes, in milliseconds.
+     */
+    private final long interval;
+
+    private final Random random;
+
+    private long temporaryFiles = 0;
+
+    public ConfigWriter(int id, List<ConfigSlot> slots, LoadTestStats stats, boolean atomic, long interval) {
+        this.id = id;
+        this.slots = slots;
+        this.stats = stats;
+        this.atomic = atomic;
+        this.interval = interval;
+        this.random = new Random(id);
+    }
+
+    @Override
+    public void run() {
+        while (stats.isRunning()) {
+            ConfigSlot slot = slots.get(random.nextInt(slots.size()));
+
+            int action = random.nextInt(100);
+            try {
+                if (action < 50) {
+                    write(slot, ConfigSlot.State.VALID);
+                } else if (action < 70) {
+                    write(slot, ConfigSlot.State.SINGLE_USE);
+                } else if (action < 85) {
+                    write(slot, ConfigSlot.State.EXPIRED);
+                } else {
+                    delete(slot);
+                }
+            } catch (IOException e) {
+                stats.error("writer: " + e.getMessage());
+            } catch (RuntimeException e) {
+                stats.error("writer: " + e.getClass().getSimpleName());
+            }
+
+            if (interval > 0) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the config file of the given slot.
+     *
+     * @param slot The slot to write.
+     * @param state The kind of config file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(ConfigSlot slot, ConfigSlot.State state) throws IOException {
+        byte[] content = createConfig(state).getBytes("UTF-8");
+        File file = slot.getFile();
+
+        slot.getWriteLock().lock();
+        try {
+            slot.publish(ConfigSlot.State.WRITING);
+            boolean written = false;
+            try {
+                if (atomic) {
+                    File temporaryFile = new File(file.getParentFile(),
+                            UserFilesAuthenticationProvider.TEMPORARY_FILE_PREFIX + file.getName()
+                            + "." + id + "." + (temporaryFiles++)
+                            + UserFilesAuthenticationProvider.TEMPORARY_FILE_SUFFIX);
+
+                    writeFile(temporaryFile, content);
+                    if (!temporaryFile.renameTo(file)) {
+                        temporaryFile.delete();
+                        throw new IOException("Unable to rename temporary file.");
+                    }
+                } else {
+                    writeFile(file, content);
+                }
+                written = true;
+            } finally {
+
+                // Leave no partial file behind
+                if (!written) {
+                    file.delete();
+                }
+
+                slot.publish(written ? state : ConfigSlot.State.ABSENT);
+            }
+        } finally {
+            slot.getWriteLock().unlock();
+        }
+
+        stats.write(state.name().toLowerCase());
+    }
+
+    private void delete(ConfigSlot slot) {
+        slot.getWriteLock().lock();
+        try {
+            slot.publish(ConfigSlot.State.WRITING);
+            slot.getFile().delete();
+            slot.publish(ConfigSlot.State.ABSENT);
+        } finally {
+            slot.getWriteLock().unlock();
+        }
+
+        stats.write("delete");
+    }
+
+    private void writeFile(File file, byte[] content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+                output.write(content, offset, Math.min(CHUNK_SIZE, content.length - offset));
+                output.flush();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private String createConfig(ConfigSlot.State state) {
+        long validTo = System.currentTimeMillis() + (state == ConfigSlot.State.EXPIRED ? -3600000 : 3600000);
+        String delete = state == ConfigSlot.State.SINGLE_USE ? "true" : "false";
+
+        StringBuilder config = new StringBuilder();
+        config.append("<configs delete=\"").append(delete).append("\" valid_to=\"")
+                .append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(validTo)))
+                .append("\">\n");
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            config.append("    <config name=\"RDP ").append(i).append("\" protocol=\"rdp\">\n")
+                    .append("        <param name=\"hostname\" value=\"192.168.110.").append(i + 1).append("\" />\n")
+                    .append("        <param name=\"port\" value=\"3389\" />\n")
+                    .append("        <param name=\"username\" value=\"${GUAC_USERNAME}\" />\n")
+                    .append("        <param name=\"password\" value=\"").append(random.nextLong()).append("\" />\n")
+                    .append("        <param name=\"security\" value=\"nla\" />\n")
+                    .append("        <param name=\"ignore-cert\" value=\"true\" />\n")
+                    .append("    </config>\n");
+        }
+
+        config.append("</configs>\n");
+        return config.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram. Values are recorded in microseconds into
+ * logarithmic buckets with 16 linear sub buckets each, so percentiles are
+ * accurate to about 6%.
+ *
+ * @author Heiko Henning
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of linear sub buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * The recorded values, counted per bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    /**
+     * The number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of all recorded values, in microseconds.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * The largest recorded value, in microseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a single latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+
+        buckets.incrementAndGet(toBucket(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Return the given percentile of all recorded values.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The percentile in microseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length(); bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= target) {
+                return Math.min(fromBucket(bucket), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    private static int toBucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >> (exponent - 4)) & (SUB_BUCKETS - 1));
+        return (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    private static long fromBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + 3;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub)) << (exponent - 4);
+    }
+}
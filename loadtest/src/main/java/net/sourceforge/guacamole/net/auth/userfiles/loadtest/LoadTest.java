@@ -0,0 +1,134 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import net.sourceforge.guacamole.net.auth.userfiles.UserFilesAuthenticationProvider;
+
+/**
+ * Load and soak test of UserFilesAuthenticationProvider. Thousands of virtual
+ * users log in, refresh and log out against a temporary GUACAMOLE_HOME while
+ * writers keep changing their config files.
+ *
+ * All settings are system properties:
+ *
+ *  loadtest.users          Number of virtual users (default 1000).
+ *  loadtest.duration       Duration of the run in seconds (default 60).
+ *  loadtest.refreshes      Page refreshes per session (default 5).
+ *  loadtest.thinkTime      Maximum time between two requests in ms (default 100).
+ *  loadtest.writers        Number of config writers (default 2).
+ *  loadtest.writeInterval  Time between two changes per writer in ms (default 2).
+ *  loadtest.atomic         Publish by temporary file and rename (default true),
+ *                          false writes config files in place.
+ *  loadtest.home           GUACAMOLE_HOME to use (default a temporary folder).
+ *
+ * Example:
+ *
+ *   mvn exec:java -Dloadtest.users=2000 -Dloadtest.duration=3600
+ *
+ * Exits with status 1 if any error occurred.
+ *
+ * @author Heiko Henning
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+
+        // Keep the extension from logging each expired config
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "error");
+        }
+
+        int users = Integer.getInteger("loadtest.users", 1000);
+        long duration = Long.getLong("loadtest.duration", 60);
+        int refreshes = Integer.getInteger("loadtest.refreshes", 5);
+        int thinkTime = Integer.getInteger("loadtest.thinkTime", 100);
+        int writers = Integer.getInteger("loadtest.writers", 2);
+        long writeInterval = Long.getLong("loadtest.writeInterval", 2);
+        boolean atomic = Boolean.parseBoolean(System.getProperty("loadtest.atomic", "true"));
+
+        // Set up GUACAMOLE_HOME
+        File home;
+        boolean temporaryHome = System.getProperty("loadtest.home") == null;
+        if (temporaryHome) {
+            home = File.createTempFile("guacamole-home", "");
+            if (!home.delete() || !home.mkdir()) {
+                throw new IOException("Unable to create temporary GUACAMOLE_HOME.");
+            }
+        } else {
+            home = new File(System.getProperty("loadtest.home"));
+            if (!home.isDirectory() && !home.mkdirs()) {
+                throw new IOException("Unable to create GUACAMOLE_HOME \"" + home + "\".");
+            }
+        }
+        System.setProperty("guacamole.home", home.getAbsolutePath());
+
+        System.out.println(String.format("GUACAMOLE_HOME: %s", home));
+        System.out.println(String.format("%d users, %d s, %d refreshes, %d ms think time, %d writers every %d ms, %s publish",
+                users, duration, refreshes, thinkTime, writers, writeInterval, atomic ? "atomic" : "in place"));
+        System.out.println();
+
+        LoadTestStats stats = new LoadTestStats();
+        LoadTestAuthenticationProvider provider = new LoadTestAuthenticationProvider();
+
+        // Every virtual user starts with a valid config file
+        List<ConfigSlot> slots = new ArrayList<ConfigSlot>(users);
+        ConfigWriter seeder = new ConfigWriter(0, slots, stats, true, 0);
+        for (int i = 0; i < users; i++) {
+            String username = String.format("vu%05d", i);
+            String ident = "load";
+            ConfigSlot slot = new ConfigSlot(username, ident,
+                    new File(home, username + "_" + ident + "_" + UserFilesAuthenticationProvider.DEFAULT_NOAUTH_CONFIG));
+            seeder.write(slot, ConfigSlot.State.VALID);
+            slots.add(slot);
+        }
+
+        // Start writers and virtual users
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < writers; i++) {
+            threads.add(new Thread(new ConfigWriter(i + 1, slots, stats, atomic, writeInterval), "writer-" + i));
+        }
+        for (int i = 0; i < users; i++) {
+            threads.add(new Thread(new VirtualUser(slots.get(i), provider, stats, refreshes, thinkTime, i), "user-" + i));
+        }
+
+        // A dying thread drops load for the rest of the run, count it as error
+        final LoadTestStats threadStats = stats;
+        Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                threadStats.error("thread died: " + e.getClass().getSimpleName());
+                e.printStackTrace();
+            }
+        };
+
+        long started = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(handler);
+            thread.start();
+        }
+
+        Thread.sleep(duration * 1000);
+        stats.stop();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - started;
+
+        stats.report(System.out, elapsed, provider.getParses(), provider.getTornReads(), provider.getRewrites());
+
+        if (temporaryHome) {
+            File[] files = home.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            home.delete();
+        }
+
+        System.exit(stats.getErrors() > 0 ? 1 : 0);
+    }
+}
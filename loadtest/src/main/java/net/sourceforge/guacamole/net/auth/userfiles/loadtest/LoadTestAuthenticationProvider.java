@@ -0,0 +1,92 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sourceforge.guacamole.net.auth.userfiles.UserFilesAuthenticationProvider;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+
+/**
+ * UserFilesAuthenticationProvider which counts how often config files are
+ * parsed and read again, and remembers per thread whether the last call found
+ * a config.
+ *
+ * @author Heiko Henning
+ */
+public class LoadTestAuthenticationProvider extends UserFilesAuthenticationProvider {
+
+    /**
+     * Number of parsed config files.
+     */
+    private final AtomicLong parses = new AtomicLong();
+
+    /**
+     * Number of config files read again because they changed while being
+     * read.
+     */
+    private final AtomicLong tornReads = new AtomicLong();
+
+    /**
+     * Number of config files read again because they were rewritten while
+     * being parsed.
+     */
+    private final AtomicLong rewrites = new AtomicLong();
+
+    /**
+     * Whether a config file was parsed successfully since the last call of
+     * resetFound() by the current thread.
+     */
+    private final ThreadLocal<Boolean> found = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    public LoadTestAuthenticationProvider() throws GuacamoleException {
+        super();
+    }
+
+    @Override
+    public synchronized Map<String, GuacamoleConfiguration> parseConfigFile(String prefix) throws GuacamoleException {
+        parses.incrementAndGet();
+
+        Map<String, GuacamoleConfiguration> configs = super.parseConfigFile(prefix);
+        if (configs != null) {
+            found.set(true);
+        }
+
+        return configs;
+    }
+
+    @Override
+    protected void tornRead(File configFile) {
+        tornReads.incrementAndGet();
+    }
+
+    @Override
+    protected void rewrittenWhileParsing(File configFile) {
+        rewrites.incrementAndGet();
+    }
+
+    public long getTornReads() {
+        return tornReads.get();
+    }
+
+    public long getRewrites() {
+        return rewrites.get();
+    }
+
+    public long getParses() {
+        return parses.get();
+    }
+
+    public void resetFound() {
+        found.set(false);
+    }
+
+    public boolean isFound() {
+        return found.get();
+    }
+}
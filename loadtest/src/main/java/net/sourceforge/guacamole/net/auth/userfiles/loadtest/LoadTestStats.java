@@ -0,0 +1,163 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, counters and errors collected during a load test run.
+ *
+ * @author Heiko Henning
+ */
+public class LoadTestStats {
+
+    public static final String AUTHENTICATE_USER = "authenticateUser";
+
+    public static final String GET_USER_CONTEXT = "getUserContext";
+
+    public static final String UPDATE_AUTHENTICATED_USER = "updateAuthenticatedUser";
+
+    public static final String UPDATE_USER_CONTEXT = "updateUserContext";
+
+    /**
+     * Latencies per operation, in the order they appear within a session.
+     */
+    private final Map<String, LatencyHistogram> latencies;
+
+    /**
+     * Number of errors, indexed by kind of error.
+     */
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Number of config file changes, indexed by kind of change.
+     */
+    private final ConcurrentMap<String, AtomicLong> writes = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Number of general events like finished sessions, indexed by name.
+     */
+    private final ConcurrentMap<String, AtomicLong> events = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Whether virtual users and writers should keep going.
+     */
+    private volatile boolean running = true;
+
+    public LoadTestStats() {
+        Map<String, LatencyHistogram> operations = new LinkedHashMap<String, LatencyHistogram>();
+        operations.put(AUTHENTICATE_USER, new LatencyHistogram());
+        operations.put(GET_USER_CONTEXT, new LatencyHistogram());
+        operations.put(UPDATE_AUTHENTICATED_USER, new LatencyHistogram());
+        operations.put(UPDATE_USER_CONTEXT, new LatencyHistogram());
+        latencies = Collections.unmodifiableMap(operations);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public void latency(String operation, long nanos) {
+        latencies.get(operation).record(nanos);
+    }
+
+    public void error(String kind) {
+        increment(errors, kind);
+    }
+
+    public void write(String kind) {
+        increment(writes, kind);
+    }
+
+    public void event(String name) {
+        increment(events, name);
+    }
+
+    public long getErrors() {
+        return sum(errors);
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+
+        counter.incrementAndGet();
+    }
+
+    private static long sum(Map<String, AtomicLong> counters) {
+        long sum = 0;
+        for (AtomicLong counter : counters.values()) {
+            sum += counter.get();
+        }
+
+        return sum;
+    }
+
+    private static void print(PrintStream out, String title, Map<String, AtomicLong> counters) {
+        out.println();
+        out.println(title + ":");
+        if (counters.isEmpty()) {
+            out.println("  none");
+        }
+
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            out.println(String.format("  %-50s %10d", counter.getKey(), counter.getValue().get()));
+        }
+    }
+
+    /**
+     * Print the results of a run.
+     *
+     * @param out The stream to print to.
+     * @param elapsedMillis The duration of the run, in milliseconds.
+     * @param parses The number of parsed config files.
+     * @param tornReads The number of config files read again because they
+     *                  changed while being read.
+     * @param rewrites The number of config files read again because they
+     *                 were rewritten while being parsed.
+     */
+    public void report(PrintStream out, long elapsedMillis, long parses, long tornReads, long rewrites) {
+        double seconds = Math.max(1, elapsedMillis) / 1000.0;
+
+        long operations = 0;
+        out.println(String.format("%-25s %10s %10s %10s %10s %10s %10s",
+                "operation", "count", "ops/s", "mean us", "p50 us", "p99 us", "max us"));
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            operations += histogram.getCount();
+            out.println(String.format("%-25s %10d %10.1f %10d %10d %10d %10d",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getCount() / seconds,
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+
+        out.println();
+        out.println(String.format("duration:   %.1f s", seconds));
+        out.println(String.format("throughput: %.1f ops/s", operations / seconds));
+        out.println(String.format("parses:     %d (%.1f/s)", parses, parses / seconds));
+        out.println(String.format("retries:    %d torn reads, %d rewritten while parsing", tornReads, rewrites));
+
+        print(out, "Sessions", events);
+        print(out, "Config file changes", writes);
+        print(out, "Errors", errors);
+    }
+}
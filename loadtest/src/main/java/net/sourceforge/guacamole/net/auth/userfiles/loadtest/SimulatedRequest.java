@@ -0,0 +1,82 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Minimal HttpServletRequest as sent by the Guacamole client, carrying only
+ * the "username" and "ident" url parameters.
+ *
+ * @author Heiko Henning
+ */
+public class SimulatedRequest implements InvocationHandler {
+
+    /**
+     * The url parameters of this request.
+     */
+    private final Map<String, String> parameters = new HashMap<String, String>();
+
+    private SimulatedRequest(String username, String ident) {
+        if (username != null) {
+            parameters.put("username", username);
+        }
+
+        if (ident != null) {
+            parameters.put("ident", ident);
+        }
+    }
+
+    /**
+     * Create a new request with the given url parameters.
+     *
+     * @param username The "username" parameter, or null.
+     * @param ident The "ident" parameter, or null.
+     * @return The request.
+     */
+    public static HttpServletRequest create(String username, String ident) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                SimulatedRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new SimulatedRequest(username, ident));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+
+        if (name.equals("getParameter")) {
+            return parameters.get((String) args[0]);
+        } else if (name.equals("getParameterNames")) {
+            return Collections.enumeration(parameters.keySet());
+        } else if (name.equals("getRemoteAddr")) {
+            return "127.0.0.1";
+        } else if (name.equals("getRemoteHost")) {
+            return "localhost";
+        } else if (name.equals("getHeaderNames")) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("toString")) {
+            return "SimulatedRequest" + parameters;
+        }
+
+        // Everything else is not used by the extension
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,239 @@
+package net.sourceforge.guacamole.net.auth.userfiles.loadtest;
+
+import java.util.Random;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.UserContext;
+
+/**
+ * Simulates a Guacamole client: logs in using its config file, refreshes the
+ * page a few times and logs out again, until the load test is stopped.
+ *
+ * After each call the result is compared with what the writer published, to
+ * detect config files which could not be read although they should have been.
+ *
+ * @author Heiko Henning
+ */
+public class VirtualUser implements Runnable {
+
+    private final ConfigSlot slot;
+
+    private final LoadTestAuthenticationProvider provider;
+
+    private final LoadTestStats stats;
+
+    /**
+     * Number of page refreshes per session.
+     */
+    private final int refreshes;
+
+    /**
+     * Maximum time to wait between two requests, in milliseconds.
+     */
+    private final int thinkTime;
+
+    private final Random random;
+
+    /**
+     * The slot state before the current call.
+     */
+    private ConfigSlot.Snapshot before;
+
+    /**
+     * Start of the current call, in nanoseconds.
+     */
+    private long start;
+
+    public VirtualUser(ConfigSlot slot, LoadTestAuthenticationProvider provider, LoadTestStats stats,
+            int refreshes, int thinkTime, long seed) {
+        this.slot = slot;
+        this.provider = provider;
+        this.stats = stats;
+        this.refreshes = refreshes;
+        this.thinkTime = thinkTime;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (stats.isRunning()) {
+                runSession();
+                think();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runSession() throws InterruptedException {
+        Credentials credentials = new Credentials(null, null,
+                SimulatedRequest.create(slot.getUsername(), slot.getIdent()));
+
+        // Login
+        AuthenticatedUser user;
+        begin();
+        try {
+            user = provider.authenticateUser(credentials);
+        } catch (GuacamoleException e) {
+            fail(LoadTestStats.AUTHENTICATE_USER, e);
+            return;
+        } catch (RuntimeException e) {
+            fail(LoadTestStats.AUTHENTICATE_USER, e);
+            return;
+        }
+        end(LoadTestStats.AUTHENTICATE_USER);
+
+        if (user == null) {
+            stats.event("unauthorized");
+            return;
+        }
+
+        UserContext context;
+        begin();
+        try {
+            context = provider.getUserContext(user);
+        } catch (GuacamoleException e) {
+            fail(LoadTestStats.GET_USER_CONTEXT, e);
+            return;
+        } catch (RuntimeException e) {
+            fail(LoadTestStats.GET_USER_CONTEXT, e);
+            return;
+        }
+        stats.latency(LoadTestStats.GET_USER_CONTEXT, System.nanoTime() - start);
+
+        // Page refreshes
+        for (int i = 0; i < refreshes && context != null && stats.isRunning(); i++) {
+            think();
+
+            begin();
+            try {
+                user = provider.updateAuthenticatedUser(user, credentials);
+            } catch (GuacamoleException e) {
+                fail(LoadTestStats.UPDATE_AUTHENTICATED_USER, e);
+                return;
+            } catch (RuntimeException e) {
+                fail(LoadTestStats.UPDATE_AUTHENTICATED_USER, e);
+                return;
+            }
+            end(LoadTestStats.UPDATE_AUTHENTICATED_USER);
+
+            if (user == null) {
+                stats.event("expired during refresh");
+                return;
+            }
+
+            begin();
+            try {
+                context = provider.updateUserContext(context, user, credentials);
+            } catch (GuacamoleException e) {
+                fail(LoadTestStats.UPDATE_USER_CONTEXT, e);
+                return;
+            } catch (RuntimeException e) {
+                fail(LoadTestStats.UPDATE_USER_CONTEXT, e);
+                return;
+            }
+            end(LoadTestStats.UPDATE_USER_CONTEXT);
+        }
+
+        if (context == null) {
+            stats.event("expired during refresh");
+            return;
+        }
+
+        // Logout, as the webapp does when the session is invalidated
+        try {
+            context.invalidate();
+            user.invalidate();
+        } catch (RuntimeException e) {
+            stats.error("logout: " + e.getClass().getSimpleName());
+            stats.event("failed");
+            return;
+        }
+        stats.event("completed");
+    }
+
+    private void begin() {
+        provider.resetFound();
+        before = slot.snapshot();
+        start = System.nanoTime();
+    }
+
+    private void end(String operation) {
+        stats.latency(operation, System.nanoTime() - start);
+        judge(slot.snapshot(), provider.isFound());
+    }
+
+    private void fail(String operation, Exception e) {
+        stats.latency(operation, System.nanoTime() - start);
+
+        // Unchecked exceptions are bugs, report them by type
+        String kind;
+        if (e instanceof GuacamoleException) {
+            kind = e.getMessage();
+            if (e.getCause() != null) {
+                kind += " (" + e.getCause().getClass().getSimpleName() + ")";
+            }
+        } else {
+            kind = operation + ": " + e.getClass().getSimpleName();
+        }
+
+        stats.error(kind);
+        stats.event("failed");
+    }
+
+    /**
+     * Compare whether a config file was found with what the writer published.
+     * Calls during which the config file changed can not be judged.
+     *
+     * @param after The slot state after the call.
+     * @param found Whether a config file was parsed successfully.
+     */
+    private void judge(ConfigSlot.Snapshot after, boolean found) {
+        if (before.generation != after.generation || before.state == ConfigSlot.State.WRITING) {
+
+            // The read might have consumed a newly published single-use file
+            if (found) {
+                slot.unjudgeable(after.generation);
+            }
+            return;
+        }
+
+        if (!before.judgeable) {
+            return;
+        }
+
+        switch (before.state) {
+            case VALID:
+                if (!found) {
+                    stats.error("missing config file");
+                }
+                break;
+
+            case SINGLE_USE:
+                if (found) {
+                    if (slot.consume(before.generation)) {
+                        stats.event("single-use consumed");
+                    } else {
+                        stats.error("single-use config file read twice");
+                    }
+                } else if (!before.consumed) {
+                    stats.error("missing single-use config file");
+                }
+                break;
+
+            default:
+                if (found) {
+                    stats.error("expired or deleted config file used");
+                }
+                break;
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (thinkTime > 0) {
+            Thread.sleep(random.nextInt(thinkTime));
+        }
+    }
+}
@@ -272,9 +272,17 @@ class Guacamole_Config {
             throw new Guacamole_Config_Exception('File exists allreay "' . $filename . '".');
         }
 
-        $written_bytes = file_put_contents($filename, (string) $this);
+        // Write to a temporary file and rename it, so guacamole never reads a partial file.
+        $tmp_filename = $this->getGuacamoleHome() . DIRECTORY_SEPARATOR . '.' . $prefix . '_' . self::CONFIG_SUFIX . '.' . uniqid('', true) . '.tmp';
+        $written_bytes = file_put_contents($tmp_filename, (string) $this);
 
         if (empty($written_bytes)) {
+            @unlink($tmp_filename);
+            throw new Guacamole_Config_Exception('Unable to write file "' . $filename . '".');
+        }
+
+        if (!rename($tmp_filename, $filename)) {
+            @unlink($tmp_filename);
             throw new Guacamole_Config_Exception('Unable to write file "' . $filename . '".');
         }
     }
@@ -1,11 +1,14 @@
 package net.sourceforge.guacamole.net.auth.userfiles;
 
 import java.util.Map;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.UUID;
 import org.apache.guacamole.GuacamoleException;
@@ -55,6 +58,11 @@ import org.apache.guacamole.token.TokenFilter;
  *   http://localhost:8080/guacamole/#/?ident=1337
  *   The default configuration: /etc/guacamole/anonymous_337_noauth-config.xml will be loadet.
  *
+ * Config files should be published atomically: write the content to a
+ * temporary file within the same folder whose name starts with "." and ends
+ * with ".tmp" (e.g. ".mst_henh_1337_noauth-config.xml.4711.tmp") and rename
+ * it to its final name afterwards. Temporary files are never read.
+ *
  * @author Heiko Henning
  */
 public class UserFilesAuthenticationProvider implements AuthenticationProvider {
@@ -81,6 +89,75 @@ public class UserFilesAuthenticationProvider implements AuthenticationProvider {
      */
     public static final String DEFAULT_NOAUTH_CONFIG = "noauth-config.xml";
 
+    /**
+     * The prefix of temporary files written by a portal before they are
+     * renamed to their final config file name.
+     */
+    public static final String TEMPORARY_FILE_PREFIX = ".";
+
+    /**
+     * The suffix of temporary files written by a portal before they are
+     * renamed to their final config file name.
+     */
+    public static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * How often a config file is read and parsed before giving up, if it
+     * keeps changing while being read.
+     */
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    /**
+     * The content of a config file together with the modification time it
+     * had while it was read.
+     */
+    private static class ConfigFileSnapshot {
+
+        /**
+         * The raw content of the config file.
+         */
+        private final byte[] data;
+
+        /**
+         * The modification time of the config file while it was read, as
+         * milliseconds since UNIX epoch.
+         */
+        private final long lastModified;
+
+        public ConfigFileSnapshot(byte[] data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Checks whether the given file still has the content it had while
+         * this snapshot was taken. The file is read again, as the modification
+         * time may only have a resolution of seconds, and a republished config
+         * often has the same size.
+         *
+         * @param file
+         *     The file to compare with this snapshot.
+         *
+         * @return
+         *     true if the file did not change since this snapshot was taken.
+         *
+         * @throws IOException
+         *     If the file cannot be read.
+         */
+        public boolean isCurrent(File file) throws IOException {
+            if (file.lastModified() != lastModified) {
+                return false;
+            }
+
+            try {
+                ConfigFileSnapshot current = readConfigFile(file);
+                return current != null && Arrays.equals(current.data, data);
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+        }
+    }
+
     /**
      * AuthenticatedUser which contains its own predefined set of authorized
      * configurations.
@@ -203,6 +280,68 @@ public class UserFilesAuthenticationProvider implements AuthenticationProvider {
         return configFile;
     }
 
+    /**
+     * Reads the whole config file through a single channel. The modification
+     * time is taken before opening the file and the size once it is open, and
+     * both are compared with the file again after reading.
+     *
+     * @param configFile The config file to read.
+     * @return The content of the config file, or null if it changed while
+     *         being read.
+     * @throws IOException If the file cannot be read.
+     */
+    private static ConfigFileSnapshot readConfigFile(File configFile) throws IOException {
+
+        // Take mtime before opening, so a rename afterwards is always noticed
+        long lastModified = configFile.lastModified();
+
+        FileInputStream input = new FileInputStream(configFile);
+        try {
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Configuration file is too large.");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+
+            // Only accept content if nothing changed while reading
+            if (buffer.hasRemaining() || channel.size() != length
+                    || configFile.length() != length || configFile.lastModified() != lastModified) {
+                return null;
+            }
+
+            return new ConfigFileSnapshot(buffer.array(), lastModified);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Called each time a config file is read again because it changed while
+     * being read. Does nothing by default, override to monitor torn reads.
+     *
+     * @param configFile The config file which is read again.
+     */
+    protected void tornRead(File configFile) {
+    }
+
+    /**
+     * Called each time a config file is read again because it could not be
+     * parsed and was rewritten after being read. Does nothing by default,
+     * override to monitor rewrites.
+     *
+     * @param configFile The config file which is read again.
+     */
+    protected void rewrittenWhileParsing(File configFile) {
+    }
+
     /**
      * Parse guacamole configuration xml.
      *
@@ -250,16 +389,55 @@ public class UserFilesAuthenticationProvider implements AuthenticationProvider {
         // Parse document
         try {
 
-            // Set up parser
-            UserFilesAuthConfigContentHandler contentHandler = new UserFilesAuthConfigContentHandler();
+            UserFilesAuthConfigContentHandler contentHandler;
+            ConfigFileSnapshot snapshot;
+
+            // Retry immediately, all other logins wait for this monitor
+            for (int attempt = 1; ; attempt++) {
 
-            XMLReader parser = XMLReaderFactory.createXMLReader();
-            parser.setContentHandler(contentHandler);
+                // Set up parser
+                contentHandler = new UserFilesAuthConfigContentHandler();
 
-            // Read and parse file
-            Reader reader = new BufferedReader(new FileReader(configFile));
-            parser.parse(new InputSource(reader));
-            reader.close();
+                XMLReader parser = XMLReaderFactory.createXMLReader();
+                parser.setContentHandler(contentHandler);
+
+                // Read and parse file
+                try {
+                    snapshot = readConfigFile(configFile);
+                } catch (FileNotFoundException e) {
+
+                    // Deleted after a retry, same as not existing at all
+                    if (attempt > 1) {
+                        logger.debug("Configuration file \"{}\" was deleted while being read.", configFile);
+                        return null;
+                    }
+                    throw e;
+                }
+
+                if (snapshot == null) {
+                    if (attempt >= MAX_READ_ATTEMPTS) {
+                        throw new IOException("Configuration file kept changing while being read.");
+                    }
+
+                    logger.debug("Configuration file \"{}\" changed while being read, retrying.", configFile);
+                    tornRead(configFile);
+                    continue;
+                }
+
+                try {
+                    parser.parse(new InputSource(new ByteArrayInputStream(snapshot.data)));
+                    break;
+                } catch (SAXException e) {
+
+                    // Only retry if the file was rewritten after being read
+                    if (attempt >= MAX_READ_ATTEMPTS || snapshot.isCurrent(configFile)) {
+                        throw e;
+                    }
+
+                    logger.debug("Configuration file \"{}\" was rewritten while being parsed, retrying.", configFile);
+                    rewrittenWhileParsing(configFile);
+                }
+            }
 
             Map<String, GuacamoleConfiguration> configs = null;
 
@@ -275,10 +453,16 @@ public class UserFilesAuthenticationProvider implements AuthenticationProvider {
 
             logger.debug("getDeleteConfig: {}", ((contentHandler.getDeleteConfig() == true) ? "Yes" : "No"));
             if (contentHandler.getDeleteConfig() == true) {
-                try {
-                    configFile.delete();
-                } catch (Exception e) {
-                    logger.warn("Error deleting config file: \"{}\": \"{}\"", configFile, e.getMessage());
+
+                // Dont delete a config which was republished in the meantime.
+                if (!snapshot.isCurrent(configFile)) {
+                    logger.debug("Keep config file \"{}\" because it was republished.", configFile);
+                } else {
+                    try {
+                        configFile.delete();
+                    } catch (Exception e) {
+                        logger.warn("Error deleting config file: \"{}\": \"{}\"", configFile, e.getMessage());
+                    }
                 }
             }
 